@@ -0,0 +1,48 @@
+import java.util.Arrays;
+
+// The letters a BoggleSolver dictionary and its board tiles are spelled with. Each letter gets a
+// code 0..size()-1 in the order given, and a trie node keeps its children as a bitmask of those
+// codes, so an alphabet holds at most MAX_SIZE letters.
+public final class Alphabet {
+    public static final int MAX_SIZE = 32;
+    public static final Alphabet UPPERCASE = new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+
+    private final char[] _letters;
+    // _codes[c] is the code of letter c, or -1; sized to the largest letter
+    private final byte[] _codes;
+
+    public Alphabet(String letters) {
+        if (letters == null) throw new IllegalArgumentException("Null letters");
+        if (letters.isEmpty() || letters.length() > MAX_SIZE) {
+            throw new IllegalArgumentException("An alphabet has 1 to " + MAX_SIZE + " letters");
+        }
+        _letters = letters.toCharArray();
+        char max = 0;
+        for (char c : _letters) {
+            max = (char) Math.max(max, c);
+        }
+        _codes = new byte[max + 1];
+        Arrays.fill(_codes, (byte) -1);
+        for (int i = 0; i < _letters.length; ++i) {
+            if (_codes[_letters[i]] != -1) throw new IllegalArgumentException("Repeated letter " + _letters[i]);
+            _codes[_letters[i]] = (byte) i;
+        }
+    }
+
+    public int size() {
+        return _letters.length;
+    }
+
+    // code of letter c, or -1 when c is not in the alphabet
+    public int indexOf(char c) {
+        return c < _codes.length ? _codes[c] : -1;
+    }
+
+    public char letter(int code) {
+        return _letters[code];
+    }
+
+    public String letters() {
+        return new String(_letters);
+    }
+}
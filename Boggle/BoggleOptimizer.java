@@ -0,0 +1,294 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+// Searches for high-scoring boards by simulated annealing: each step changes the letter of one
+// cell and keeps the change if it raises the score, or with probability exp(delta/T) if not.
+// Every chain keeps, for each dictionary word, the number of board paths spelling it, so a
+// step only re-walks the paths through the changed cell instead of solving the whole board.
+// Independent chains run in parallel and the best board found by any of them is returned.
+public class BoggleOptimizer {
+    private static final int MAX_DEPTH = 4;
+    private final int[] _childMask;
+    private final int[] _firstChild;
+    private final int[] _requiredLetters;
+    private final boolean[] _isWord;
+    // _lettersBelow[d-1][node] has the codes of the letters at least d letters below node, so a
+    // path that is d cells from a tile can only reach it if its letter is in there
+    private final int[][] _lettersBelow;
+    // board letters the search may place, and the alphabet codes of each letter's tile
+    private final char[] _letters;
+    private final byte[][] _tileCodes;
+
+    public BoggleOptimizer(BoggleSolver solver) {
+        if (solver == null) {
+            throw new IllegalArgumentException("Null solver");
+        }
+        int nodes = solver.nodes();
+        _childMask = new int[nodes];
+        _firstChild = new int[nodes];
+        _requiredLetters = new int[nodes];
+        _isWord = new boolean[nodes];
+        _lettersBelow = new int[MAX_DEPTH][nodes];
+        for (int node = 0; node < nodes; ++node) {
+            _childMask[node] = solver.childMask(node);
+            _firstChild[node] = solver.firstChild(node);
+            _requiredLetters[node] = solver.requiredLetters(node);
+            _isWord[node] = solver.isWord(node);
+        }
+        // children are always stored after their parent
+        for (int node = nodes-1; node >= 0; --node) {
+            int child = _firstChild[node];
+            for (int mask = _childMask[node]; mask != 0; mask &= mask - 1, ++child) {
+                _lettersBelow[0][node] |= Integer.lowestOneBit(mask) | _lettersBelow[0][child];
+                for (int d = 1; d < MAX_DEPTH; ++d) {
+                    _lettersBelow[d][node] |= _lettersBelow[d-1][child];
+                }
+            }
+        }
+        Alphabet alphabet = solver.alphabet();
+        StringBuilder letters = new StringBuilder();
+        byte[][] tileCodes = new byte[26][];
+        for (char c = 'A'; c <= 'Z'; ++c) {
+            String tile = BoggleSolver.boggleTile(c);
+            byte[] codes = new byte[tile.length()];
+            boolean inAlphabet = true;
+            for (int i = 0; i < tile.length(); ++i) {
+                codes[i] = (byte) alphabet.indexOf(tile.charAt(i));
+                inAlphabet &= codes[i] != -1;
+            }
+            if (inAlphabet) {
+                tileCodes[letters.length()] = codes;
+                letters.append(c);
+            }
+        }
+        if (letters.length() == 0) {
+            throw new IllegalArgumentException("Solver alphabet has no Boggle letters");
+        }
+        _letters = letters.toString().toCharArray();
+        _tileCodes = Arrays.copyOf(tileCodes, _letters.length);
+    }
+
+    // Runs the given number of annealing chains of steps letter changes each on a rows-by-cols
+    // board and returns the best board seen. The temperature falls linearly from
+    // startTemperature to 0; a start temperature of 0 makes each chain a plain hill climb.
+    public BoggleBoard optimize(int rows, int cols, int chains, long steps, double startTemperature, long seed) {
+        if (rows < 1 || cols < 1 || rows*cols > 64) {
+            throw new IllegalArgumentException("Boards have 1 to 64 cells");
+        }
+        if (chains < 1 || steps < 0 || startTemperature < 0) {
+            throw new IllegalArgumentException("Bad search parameters");
+        }
+        SplittableRandom seeds = new SplittableRandom(seed);
+        long[] chainSeeds = new long[chains];
+        for (int i = 0; i < chains; ++i) {
+            chainSeeds[i] = seeds.nextLong();
+        }
+        Chain best = IntStream.range(0, chains).parallel()
+                .mapToObj(i -> new Chain(rows, cols, new SplittableRandom(chainSeeds[i])).anneal(steps, startTemperature))
+                .max(Comparator.comparingInt((Chain chain) -> chain.bestScore))
+                .get();
+        char[][] board = new char[rows][cols];
+        for (int cell = 0; cell < rows*cols; ++cell) {
+            board[cell / cols][cell % cols] = _letters[best.bestBoard[cell]];
+        }
+        return new BoggleBoard(board);
+    }
+
+    // One annealing chain. pathCount[node] is the number of simple board paths spelling the word
+    // of node, and score the total over words with at least one path.
+    private class Chain {
+        private final int cells;
+        private final SplittableRandom random;
+        private final int[] neighbors;
+        private final int[] degree;
+        // Chebyshev distance between two cells: the fewest tiles on a path from one to the other
+        private final int[] distance;
+        // letter index (into _letters) of each cell
+        private final int[] board;
+        private final int[] pathCount = new int[_childMask.length];
+        // number of tiles supplying each alphabet code, and the codes with none
+        private final int[] codeCount = new int[Alphabet.MAX_SIZE];
+        private int missingLetters = -1;
+        private int score;
+        private int[] bestBoard;
+        private int bestScore = -1;
+        // The cell being changed, or -1 while counting every path of a new board. Apart from
+        // that cell the board is the same before and after a change, so one walk covers both:
+        // paths reaching target fork into the old letter, whose words lose a path, and the new
+        // one, whose words gain one. targetBits has the first letter code of both tiles.
+        private int target = -1;
+        private int oldLetter;
+        private int newLetter;
+        private int targetBits;
+        // letters missing from the board both before and after the change
+        private int walkMissing;
+        // words whose path count the last change raised (node) or lowered (~node); a rejected
+        // change is undone from this log instead of walking the paths again
+        private int[] changed = new int[64];
+        private int changedCount;
+
+        Chain(int rows, int cols, SplittableRandom random) {
+            this.cells = rows*cols;
+            this.random = random;
+            neighbors = new int[8*cells];
+            degree = new int[cells];
+            distance = new int[cells*cells];
+            for (int cell = 0; cell < cells; ++cell) {
+                for (int other = 0; other < cells; ++other) {
+                    int rowDistance = Math.abs(cell / cols - other / cols);
+                    int colDistance = Math.abs(cell % cols - other % cols);
+                    int d = Math.max(rowDistance, colDistance);
+                    distance[cell*cells + other] = d;
+                    if (d == 1) neighbors[cell*8 + degree[cell]++] = other;
+                }
+            }
+            board = new int[cells];
+            for (int cell = 0; cell < cells; ++cell) {
+                placeLetter(cell, random.nextInt(_letters.length));
+            }
+            walkMissing = missingLetters;
+            for (int start = 0; start < cells; ++start) {
+                int node = step(0, board[start]);
+                if (node != -1) extend(start, node, _tileCodes[board[start]].length, 1L << start, 1);
+            }
+        }
+
+        Chain anneal(long steps, double startTemperature) {
+            keepIfBest();
+            if (_letters.length == 1) return this;
+            for (long step = 0; step < steps; ++step) {
+                double temperature = startTemperature * (steps - step) / steps;
+                int cell = random.nextInt(cells);
+                int letter = random.nextInt(_letters.length - 1);
+                if (letter >= board[cell]) ++letter;
+                int before = score;
+                int delta = change(cell, letter);
+                if (delta >= 0 || (temperature > 0 && random.nextDouble() < Math.exp(delta / temperature))) {
+                    if (delta > 0) keepIfBest();
+                }
+                else {
+                    undo(before);
+                }
+            }
+            return this;
+        }
+
+        private void keepIfBest() {
+            if (score > bestScore) {
+                bestScore = score;
+                bestBoard = board.clone();
+            }
+        }
+
+        // give cell a new letter and return the change in score
+        private int change(int cell, int letter) {
+            int before = score;
+            target = cell;
+            oldLetter = board[cell];
+            newLetter = letter;
+            targetBits = 1 << _tileCodes[oldLetter][0] | 1 << _tileCodes[newLetter][0];
+            int oldMissing = missingLetters;
+            setLetter(cell, letter);
+            walkMissing = oldMissing & missingLetters;
+            changedCount = 0;
+            for (int start = 0; start < cells; ++start) {
+                if (start == target) {
+                    fork(start, 0, 0, 0);
+                    continue;
+                }
+                int node = step(0, board[start]);
+                if (node == -1 || !canReachTarget(start, node)) continue;
+                extendToTarget(start, node, _tileCodes[board[start]].length, 1L << start);
+            }
+            return score - before;
+        }
+
+        // revert the last change
+        private void undo(int oldScore) {
+            for (int i = 0; i < changedCount; ++i) {
+                int entry = changed[i];
+                if (entry >= 0) --pathCount[entry];
+                else ++pathCount[~entry];
+            }
+            setLetter(target, oldLetter);
+            score = oldScore;
+        }
+
+        private void setLetter(int cell, int letter) {
+            for (byte code : _tileCodes[board[cell]]) {
+                if (--codeCount[code] == 0) missingLetters |= 1 << code;
+            }
+            placeLetter(cell, letter);
+        }
+
+        private void placeLetter(int cell, int letter) {
+            board[cell] = letter;
+            for (byte code : _tileCodes[letter]) {
+                if (codeCount[code]++ == 0) missingLetters &= ~(1 << code);
+            }
+        }
+
+        // continue a path that ends at cell, spells the word of node, length letters long, and
+        // has not passed target yet
+        private void extendToTarget(int cell, int node, int length, long visited) {
+            for (int i = 0; i < degree[cell]; ++i) {
+                int next = neighbors[cell*8 + i];
+                if ((visited & 1L << next) != 0) continue;
+                if (next == target) {
+                    fork(next, node, length, visited);
+                    continue;
+                }
+                int newNode = step(node, board[next]);
+                if (newNode == -1 || !canReachTarget(next, newNode)) continue;
+                extendToTarget(next, newNode, length + _tileCodes[board[next]].length, visited | 1L << next);
+            }
+        }
+
+        // the path reaches target: its words so far lose a path with the old letter and gain one
+        // with the new letter
+        private void fork(int cell, int node, int length, long visited) {
+            int oldNode = step(node, oldLetter);
+            if (oldNode != -1) extend(cell, oldNode, length + _tileCodes[oldLetter].length, visited | 1L << cell, -1);
+            int newNode = step(node, newLetter);
+            if (newNode != -1) extend(cell, newNode, length + _tileCodes[newLetter].length, visited | 1L << cell, 1);
+        }
+
+        // continue a path that ends at cell and spells the word of node, length letters long,
+        // adding sign to the path count of each word it spells
+        private void extend(int cell, int node, int length, long visited, int sign) {
+            if (length >= 3 && _isWord[node]) {
+                if (changedCount == changed.length) changed = Arrays.copyOf(changed, 2*changedCount);
+                changed[changedCount++] = sign > 0 ? node : ~node;
+                int count = pathCount[node] += sign;
+                if (sign > 0 && count == 1) score += BoggleSolver.scoreOfLength(length);
+                else if (sign < 0 && count == 0) score -= BoggleSolver.scoreOfLength(length);
+            }
+            for (int i = 0; i < degree[cell]; ++i) {
+                int next = neighbors[cell*8 + i];
+                if ((visited & 1L << next) != 0) continue;
+                int newNode = step(node, board[next]);
+                if (newNode == -1) continue;
+                extend(next, newNode, length + _tileCodes[board[next]].length, visited | 1L << next, sign);
+            }
+        }
+
+        // whether a path now at cell, spelling the word of node, can still go on to target
+        private boolean canReachTarget(int cell, int node) {
+            int d = Math.min(distance[cell*cells + target], MAX_DEPTH);
+            return (_lettersBelow[d-1][node] & targetBits) != 0;
+        }
+
+        // node reached from node by the tile of a letter, or -1 if no word goes that way
+        private int step(int node, int letter) {
+            for (byte code : _tileCodes[letter]) {
+                int bit = 1 << code;
+                int mask = _childMask[node];
+                if ((mask & bit) == 0) return -1;
+                node = _firstChild[node] + Integer.bitCount(mask & (bit - 1));
+            }
+            return (_requiredLetters[node] & walkMissing) != 0 ? -1 : node;
+        }
+    }
+}
@@ -1,158 +1,604 @@
-import java.util.Iterator;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import edu.princeton.cs.algs4.Bag;
 import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
 
 public class BoggleSolver {
-    private final SimpleTrie _dictTrie;
+    // tiles of a standard BoggleBoard by letter: Q stands for QU
+    private static final String[] BOGGLE_TILES = new String[26];
+    static {
+        for (char c = 'A'; c <= 'Z'; ++c) {
+            BOGGLE_TILES[c - 'A'] = c == 'Q' ? "QU" : String.valueOf(c);
+        }
+    }
+    // snapshot file: MAGIC, VERSION, node count, alphabet size and letters, then the four trie
+    // tables, all as big-endian ints
+    private static final int MAGIC = 0x42474C54;
+    private static final int VERSION = 2;
+    private static final int HEADER_INTS = 4;
+    private final Alphabet _alphabet;
+    // Dictionary trie flattened into int tables, either on the heap or mapped from a snapshot
+    // file; node 0 is the root. Bit c of _childMask[node] is set when the node has a child for
+    // the letter with alphabet code c, and the children of a node are stored contiguously in
+    // code order starting at _firstChild[node].
+    private final IntBuffer _childMask;
+    private final IntBuffer _firstChild;
+    private final IntBuffer _isWord;  // bitset over nodes
+    // letters (bit c for code c) that every word in the node's subtree contains; a board
+    // without all of them cannot spell any word below the node
+    private final IntBuffer _requiredLetters;
+    private final int _nodes;
+    // the dictionary is immutable after construction; mutable search state lives in
+    // one Scratch per thread, so any number of threads may solve boards at once
+    private final ThreadLocal<Scratch> _scratch;
     private final int[] _xDirections;
     private final int[] _yDirections;
 
     // Initializes the data structure using the given array of strings as the dictionary.
     // (You can assume each word in the dictionary contains only the uppercase letters A through Z.)
     public BoggleSolver(String[] dictionary) {
-        if (dictionary == null) {
-            throw new IllegalArgumentException("Null dict");
-        }
-        _dictTrie = new SimpleTrie();
-        for (String word : dictionary) {
-            _dictTrie.add(word);
-        }
+        this(dictionary, Alphabet.UPPERCASE);
+    }
+
+    // Initializes the solver for a dictionary spelled with the given alphabet; boards for it are
+    // given as grids of tiles, each one or more letters of the alphabet.
+    public BoggleSolver(String[] dictionary, Alphabet alphabet) {
+        this(TrieBuilder.build(dictionary, alphabet), alphabet);
+    }
+
+    private BoggleSolver(TrieBuilder builder, Alphabet alphabet) {
+        this(alphabet,
+             IntBuffer.wrap(Arrays.copyOf(builder.childMask, builder.size)),
+             IntBuffer.wrap(Arrays.copyOf(builder.firstChild, builder.size)),
+             IntBuffer.wrap(Arrays.copyOf(builder.isWord, (builder.size + 31) >>> 5)),
+             IntBuffer.wrap(Arrays.copyOf(builder.requiredLetters, builder.size)),
+             builder.size);
+    }
+
+    private BoggleSolver(Alphabet alphabet, IntBuffer childMask, IntBuffer firstChild, IntBuffer isWord,
+                         IntBuffer requiredLetters, int nodes) {
+        _alphabet = alphabet;
+        _childMask = childMask;
+        _firstChild = firstChild;
+        _isWord = isWord;
+        _requiredLetters = requiredLetters;
+        _nodes = nodes;
+        _scratch = ThreadLocal.withInitial(() -> new Scratch(nodes));
         _xDirections = new int[]{1, -1, 0, 0, 1, -1, 1, -1};
         _yDirections = new int[]{0, 0, 1, -1, 1, -1, -1, 1};
     }
 
-    
-    // R-way trie node
-    private class TrieNode {
-        private static final int R = 26;  // A-Z
-        private static final int Anum = 65; // letter A in ASCII
-        private TrieNode[] next = new TrieNode[R];
-        private boolean isString;
+    // Writes the built dictionary trie to a snapshot file that load() can map back in.
+    public void save(String filename) {
+        if (filename == null) throw new IllegalArgumentException("Null file name");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_nodes);
+            out.writeInt(_alphabet.size());
+            for (int code = 0; code < _alphabet.size(); ++code) {
+                out.writeInt(_alphabet.letter(code));
+            }
+            for (IntBuffer table : new IntBuffer[]{_childMask, _firstChild, _isWord, _requiredLetters}) {
+                for (int i = 0; i < table.limit(); ++i) {
+                    out.writeInt(table.get(i));
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Cannot write snapshot " + filename, e);
+        }
     }
 
-    private class SimpleTrie implements Iterable<String>{
-        private TrieNode root;
-        public SimpleTrie() {
+    // Creates a solver over a snapshot written by save(). The file is memory-mapped read-only and
+    // searched in place, so startup does no parsing and the pages are shared between processes.
+    public static BoggleSolver load(String filename) {
+        if (filename == null) throw new IllegalArgumentException("Null file name");
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read snapshot " + filename, e);
+        }
+        IntBuffer ints = mapped.asIntBuffer();
+        if (ints.limit() < HEADER_INTS || ints.get(0) != MAGIC || ints.get(1) != VERSION) {
+            throw new IllegalArgumentException("Not a dictionary snapshot: " + filename);
+        }
+        int nodes = ints.get(2);
+        int alphabetSize = ints.get(3);
+        int bitsetInts = (nodes + 31) >>> 5;
+        if (nodes < 1 || alphabetSize < 1 || alphabetSize > Alphabet.MAX_SIZE
+                || ints.limit() != HEADER_INTS + alphabetSize + 3L*nodes + bitsetInts) {
+            throw new IllegalArgumentException("Truncated dictionary snapshot: " + filename);
         }
-        /**
-         * Adds the key to the set if it is not already present.
-         * @param key the key to add
-         * @throws IllegalArgumentException if {@code key} is {@code null}
-         */
-        public void add(String key) {
-            if (key == null) throw new IllegalArgumentException("argument to add() is null");
-            root = add(root, key, 0);
+        char[] letters = new char[alphabetSize];
+        for (int code = 0; code < alphabetSize; ++code) {
+            letters[code] = (char) ints.get(HEADER_INTS + code);
+        }
+        Alphabet alphabet = new Alphabet(new String(letters));
+        int offset = HEADER_INTS + alphabetSize;
+        IntBuffer childMask = slice(ints, offset, nodes);
+        offset += nodes;
+        IntBuffer firstChild = slice(ints, offset, nodes);
+        offset += nodes;
+        IntBuffer isWord = slice(ints, offset, bitsetInts);
+        offset += bitsetInts;
+        IntBuffer requiredLetters = slice(ints, offset, nodes);
+        return new BoggleSolver(alphabet, childMask, firstChild, isWord, requiredLetters, nodes);
+    }
+
+    private static IntBuffer slice(IntBuffer ints, int offset, int length) {
+        IntBuffer view = ints.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    // Per-thread search state, reused across boards and grown to fit the largest board seen.
+    private static class Scratch {
+        // foundEpoch[node] == epoch when the node's word was already found on the current board
+        private final int[] foundEpoch;
+        private int epoch;
+        // total score of the words found so far on the current board, and the score of each
+        // word in the order found when the words themselves are collected
+        private int score;
+        private int[] wordScores = new int[16];
+        private int wordCount;
+        // current board flattened to tiles: the letters of cell c are tileChars (and their codes
+        // tileCodes) at [tileStart[c], tileStart[c+1]). Each cell has up to 8 neighbor cells;
+        // the neighbor lists are only rebuilt when the board shape changes.
+        private int cells;
+        // letters available on the board, as a mask of alphabet codes
+        private int boardLetters;
+        private int rows = -1;
+        private int cols = -1;
+        private int[] tileStart = new int[1];
+        private char[] tileChars = new char[0];
+        private byte[] tileCodes = new byte[0];
+        private int[] neighbors = new int[0];
+        private int[] degree = new int[0];
+        private boolean[] visited = new boolean[0];
+        private char[] path = new char[0];
+        private int[] stackCell = new int[0];
+        private int[] stackNode = new int[0];
+        private int[] stackDir = new int[0];
+        private int[] stackLength = new int[0];
+
+        Scratch(int nodes) {
+            foundEpoch = new int[nodes];
         }
-    
-        private TrieNode add(TrieNode x, String key, int d) {
-            if (x == null) x = new TrieNode();
-            if (d == key.length()) {
-                x.isString = true;
+
+        // start a new board: a new epoch marks every dictionary word as not yet found
+        void reset(int cells) {
+            if (epoch == Integer.MAX_VALUE) {
+                Arrays.fill(foundEpoch, 0);
+                epoch = 0;
             }
-            else {
-                char c = key.charAt(d);
-                x.next[c-'A'] = add(x.next[c-'A'], key, d+1);
+            ++epoch;
+            score = 0;
+            wordCount = 0;
+            boardLetters = 0;
+            this.cells = cells;
+            if (visited.length < cells) {
+                rows = -1;
+                cols = -1;
+                tileStart = new int[cells+1];
+                neighbors = new int[8*cells];
+                degree = new int[cells];
+                visited = new boolean[cells];
+                stackCell = new int[cells];
+                stackNode = new int[cells];
+                stackDir = new int[cells];
+                stackLength = new int[cells];
             }
-            return x;
         }
 
-        private TrieNode get(TrieNode currentNode, String s, int index) {
-            if (currentNode == null) return currentNode;
-            if (index == s.length()) return currentNode;
-            return get(currentNode.next[s.charAt(index) - 'A'], s, index+1);
+        // append the tile of the next cell, letters given as chars and alphabet codes
+        void addTile(int cell, String tile, Alphabet alphabet) {
+            int start = tileStart[cell];
+            int end = start + tile.length();
+            if (tile.isEmpty()) throw new IllegalArgumentException("Empty tile");
+            if (tileChars.length < end) {
+                tileChars = Arrays.copyOf(tileChars, Math.max(end, 2*tileChars.length));
+                tileCodes = Arrays.copyOf(tileCodes, tileChars.length);
+            }
+            for (int i = 0; i < tile.length(); ++i) {
+                char c = tile.charAt(i);
+                int code = alphabet.indexOf(c);
+                if (code == -1) throw new IllegalArgumentException("Tile letter outside the alphabet: " + c);
+                tileChars[start + i] = c;
+                tileCodes[start + i] = (byte) code;
+                boardLetters |= 1 << code;
+            }
+            tileStart[cell+1] = end;
+            // the longest path uses every tile once
+            if (path.length < end) {
+                path = new char[tileChars.length];
+            }
         }
 
-        public boolean contains(String s) {
-            if (s == null) throw new IllegalArgumentException("Null string");
-            TrieNode findNode = get(root, s, 0);
-            if (findNode == null) return false;
-            return findNode.isString;
+        void addWordScore(int wordScore) {
+            if (wordCount == wordScores.length) {
+                wordScores = Arrays.copyOf(wordScores, 2*wordCount);
+            }
+            wordScores[wordCount++] = wordScore;
+        }
+    }
+
+    // The words found on one board together with their scores.
+    public static final class Solution {
+        private final List<String> words;
+        private final int[] wordScores;
+        private final int score;
+
+        private Solution(List<String> words, int[] wordScores, int score) {
+            this.words = Collections.unmodifiableList(words);
+            this.wordScores = wordScores;
+            this.score = score;
+        }
+
+        public List<String> words() {
+            return words;
         }
 
-        private void collectAllWords(TrieNode node, StringBuilder currentWord, Bag<String> collected) {
-            if (node == null) return;
-            if (node.isString) {
-                collected.add(currentWord.toString());
+        // score of words().get(i)
+        public int wordScore(int i) {
+            return wordScores[i];
+        }
+
+        public int score() {
+            return score;
+        }
+    }
+
+    // Builds the flattened trie from a sorted word list, one node per distinct prefix.
+    private static class TrieBuilder {
+        private final String[] words;
+        private final Alphabet alphabet;
+        private final int[] childMask;
+        private final int[] firstChild;
+        private final int[] isWord;
+        private final int[] requiredLetters;
+        private int size = 1;
+
+        static TrieBuilder build(String[] dictionary, Alphabet alphabet) {
+            if (dictionary == null) {
+                throw new IllegalArgumentException("Null dict");
+            }
+            if (alphabet == null) {
+                throw new IllegalArgumentException("Null alphabet");
             }
-            for (int i = 0; i < TrieNode.R; ++i) {
-                if (node.next[i] != null) {
-                    currentWord.append((char)(i+TrieNode.Anum));
-                    collectAllWords(node.next[i], currentWord, collected);
-                    currentWord.deleteCharAt(currentWord.length()-1);
+            String[] words = dictionary.clone();
+            int capacity = 1;
+            for (String word : words) {
+                if (word == null) throw new IllegalArgumentException("argument to add() is null");
+                for (int i = 0; i < word.length(); ++i) {
+                    if (alphabet.indexOf(word.charAt(i)) == -1) {
+                        throw new IllegalArgumentException("Word letter outside the alphabet: " + word);
+                    }
                 }
+                capacity += word.length();
             }
+            Arrays.sort(words);
+            TrieBuilder builder = new TrieBuilder(words, alphabet, capacity);
+            builder.build(0, 0, words.length, 0, 0);
+            return builder;
+        }
+
+        TrieBuilder(String[] words, Alphabet alphabet, int capacity) {
+            this.words = words;
+            this.alphabet = alphabet;
+            childMask = new int[capacity];
+            firstChild = new int[capacity];
+            isWord = new int[(capacity + 31) >>> 5];
+            requiredLetters = new int[capacity];
+        }
+
+        // words[lo, hi) all share the prefix of length d spelled by node, whose letters are
+        // prefixLetters; returns the letters every word in the subtree contains. The words are
+        // sorted by char, which need not be code order, so each child is placed by its code rank.
+        int build(int node, int lo, int hi, int d, int prefixLetters) {
+            int required = -1;
+            int i = lo;
+            while (i < hi && words[i].length() == d) {
+                isWord[node >>> 5] |= 1 << node;
+                required = prefixLetters;
+                ++i;
+            }
+            int mask = 0;
+            for (int j = i; j < hi; ++j) {
+                mask |= 1 << alphabet.indexOf(words[j].charAt(d));
+            }
+            int first = size;
+            childMask[node] = mask;
+            firstChild[node] = first;
+            size += Integer.bitCount(mask);
+            while (i < hi) {
+                char c = words[i].charAt(d);
+                int bit = 1 << alphabet.indexOf(c);
+                int j = i+1;
+                while (j < hi && words[j].charAt(d) == c) ++j;
+                required &= build(first + Integer.bitCount(mask & (bit - 1)), i, j, d+1, prefixLetters | bit);
+                i = j;
+            }
+            requiredLetters[node] = required;
+            return required;
+        }
+    }
+
+    // child of node for the given letter code, or -1
+    private int child(int node, int code) {
+        int bit = 1 << code;
+        int mask = _childMask.get(node);
+        if ((mask & bit) == 0) return -1;
+        return _firstChild.get(node) + Integer.bitCount(mask & (bit - 1));
+    }
+
+    // trie access for BoggleOptimizer, which copies the tables into arrays of its own
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    int nodes() {
+        return _nodes;
+    }
+
+    int childMask(int node) {
+        return _childMask.get(node);
+    }
+
+    int firstChild(int node) {
+        return _firstChild.get(node);
+    }
+
+    int requiredLetters(int node) {
+        return _requiredLetters.get(node);
+    }
+
+    // tile of a standard BoggleBoard letter
+    static String boggleTile(char letter) {
+        return BOGGLE_TILES[letter - 'A'];
+    }
+
+    boolean isWord(int node) {
+        return (_isWord.get(node >>> 5) & (1 << node)) != 0;
+    }
+
+    private boolean contains(String s) {
+        int node = 0;
+        for (int i = 0; i < s.length() && node != -1; ++i) {
+            int code = _alphabet.indexOf(s.charAt(i));
+            node = code == -1 ? -1 : child(node, code);
         }
+        return node != -1 && isWord(node);
+    }
 
-        @Override
-        public Iterator<String> iterator() {
-            Bag<String> words = new Bag<String>();
-            StringBuilder currentWord = new StringBuilder();
-            collectAllWords(root, currentWord, words);
-            return words.iterator();
+    // dictionary node reached from node by the letters of one tile, or -1
+    private int step(int node, byte[] tileCodes, int from, int to) {
+        for (int i = from; i < to && node != -1; ++i) {
+            node = child(node, tileCodes[i]);
         }
+        return node;
     }
 
-    private void findAllValidWords(BoggleBoard board, int m, int n, int row, int col, String s, SimpleTrie foundWords, TrieNode dictNode, boolean[] visited) {
-        if (dictNode == null) return;
-        if (s.length() >= 3 && dictNode.isString) {
-            foundWords.add(s);
+    // Iterative DFS from one start cell. Frame d of the stack holds the cell and dictionary node
+    // of the (d+1)-th letter on the path, the index of the next neighbor to try from it, and the
+    // length of path[] up to and including it; a String is only created when the path spells a
+    // word, and only when foundWords is not null. Each word's score comes from the path length.
+    // Boards of at most 64 cells track visited cells in a long bitmask, larger ones a boolean[];
+    // no recursion is involved, so board size is only limited by memory.
+    private void findAllValidWords(int start, List<String> foundWords, Scratch scratch) {
+        int[] foundEpoch = scratch.foundEpoch;
+        int epoch = scratch.epoch;
+        int[] tileStart = scratch.tileStart;
+        char[] tileChars = scratch.tileChars;
+        byte[] tileCodes = scratch.tileCodes;
+        int[] neighbors = scratch.neighbors;
+        int[] degree = scratch.degree;
+        boolean small = scratch.cells <= 64;
+        long visitedMask = 0;
+        boolean[] visited = scratch.visited;
+        char[] path = scratch.path;
+        int[] stackCell = scratch.stackCell;
+        int[] stackNode = scratch.stackNode;
+        int[] stackDir = scratch.stackDir;
+        int[] stackLength = scratch.stackLength;
+        int missingLetters = ~scratch.boardLetters;
+        int startNode = step(0, tileCodes, tileStart[start], tileStart[start+1]);
+        if (startNode == -1 || (_requiredLetters.get(startNode) & missingLetters) != 0) return;
+        int length = tileStart[start+1] - tileStart[start];
+        System.arraycopy(tileChars, tileStart[start], path, 0, length);
+        if (length >= 3 && foundEpoch[startNode] != epoch && isWord(startNode)) {
+            foundEpoch[startNode] = epoch;
+            int wordScore = scoreOfLength(length);
+            scratch.score += wordScore;
+            if (foundWords != null) {
+                foundWords.add(new String(path, 0, length));
+                scratch.addWordScore(wordScore);
+            }
         }
-        for (int i = 0; i < 8; ++i) {
-            int newRow = row + _xDirections[i];
-            int newCol = col + _yDirections[i];
-            if (newRow < 0 || newRow >= m || newCol < 0 || newCol >= n) {
+        if (small) visitedMask = 1L << start;
+        else visited[start] = true;
+        stackCell[0] = start;
+        stackNode[0] = startNode;
+        stackDir[0] = 0;
+        stackLength[0] = length;
+        int depth = 1;
+        while (depth > 0) {
+            int top = depth-1;
+            int cell = stackCell[top];
+            if (stackDir[top] == degree[cell]) {
+                if (small) visitedMask &= ~(1L << cell);
+                else visited[cell] = false;
+                --depth;
                 continue;
             }
-            if (visited[newRow*n + newCol]) continue;
-            visited[newRow*n + newCol] = true;
-            char nextLetter = board.getLetter(newRow, newCol);
-            String nextS = s + nextLetter;
-            TrieNode newNode = dictNode.next[nextLetter-'A'];
-            if (nextLetter == 'Q') {
-                if (newNode != null)
-                    newNode = newNode.next['U'-'A'];
-                nextS += 'U';
+            int next = neighbors[cell*8 + stackDir[top]++];
+            if (small ? (visitedMask & (1L << next)) != 0 : visited[next]) continue;
+            int from = tileStart[next];
+            int to = tileStart[next+1];
+            int newNode = step(stackNode[top], tileCodes, from, to);
+            if (newNode == -1 || (_requiredLetters.get(newNode) & missingLetters) != 0) continue;
+            length = stackLength[top];
+            for (int i = from; i < to; ++i) {
+                path[length++] = tileChars[i];
+            }
+            if (length >= 3 && foundEpoch[newNode] != epoch && isWord(newNode)) {
+                foundEpoch[newNode] = epoch;
+                int wordScore = scoreOfLength(length);
+                scratch.score += wordScore;
+                if (foundWords != null) {
+                    foundWords.add(new String(path, 0, length));
+                    scratch.addWordScore(wordScore);
+                }
             }
-            findAllValidWords(board, m, n, newRow, newCol, nextS, foundWords, newNode, visited);
-            visited[newRow*n + newCol] = false;
+            if (small) visitedMask |= 1L << next;
+            else visited[next] = true;
+            stackCell[depth] = next;
+            stackNode[depth] = newNode;
+            stackDir[depth] = 0;
+            stackLength[depth] = length;
+            ++depth;
         }
     }
 
-    // Returns the set of all valid words in the given Boggle board, as an Iterable.
-    public Iterable<String> getAllValidWords(BoggleBoard board) {
-        SimpleTrie foundWords = new SimpleTrie();
-        if (_dictTrie.root == null) return null;
+    // copy the board's tiles into the scratch and, when the board shape changed,
+    // rebuild the per-cell neighbor lists
+    private Scratch prepareBoard(BoggleBoard board) {
         if (board == null) {
             throw new IllegalArgumentException("Null board");
         }
         int m = board.rows();
         int n = board.cols();
-        boolean[] visitedPos = new boolean[m*n];
+        Scratch scratch = _scratch.get();
+        scratch.reset(m*n);
+        for (int row = 0; row < m; ++row) {
+            for (int col = 0; col < n; ++col) {
+                scratch.addTile(row*n + col, BOGGLE_TILES[board.getLetter(row, col) - 'A'], _alphabet);
+            }
+        }
+        prepareNeighbors(m, n, scratch);
+        return scratch;
+    }
+
+    private Scratch prepareBoard(String[][] tiles) {
+        if (tiles == null || tiles.length == 0 || tiles[0] == null) {
+            throw new IllegalArgumentException("Null board");
+        }
+        int m = tiles.length;
+        int n = tiles[0].length;
+        Scratch scratch = _scratch.get();
+        scratch.reset(m*n);
         for (int row = 0; row < m; ++row) {
+            if (tiles[row] == null || tiles[row].length != n) {
+                throw new IllegalArgumentException("Board rows differ in length");
+            }
             for (int col = 0; col < n; ++col) {
-                char baseLetter = board.getLetter(row, col);
-                String s = String.valueOf(baseLetter);
-                visitedPos[row*n+ col] = true;
-                TrieNode baseNode = _dictTrie.root.next[baseLetter - 'A'];
-                if (baseLetter == 'Q') {
-                    s += 'U';
-                    baseNode = baseNode.next['U'-'A'];
+                if (tiles[row][col] == null) throw new IllegalArgumentException("Null tile");
+                scratch.addTile(row*n + col, tiles[row][col], _alphabet);
+            }
+        }
+        prepareNeighbors(m, n, scratch);
+        return scratch;
+    }
+
+    private void prepareNeighbors(int m, int n, Scratch scratch) {
+        if (scratch.rows == m && scratch.cols == n) return;
+        scratch.rows = m;
+        scratch.cols = n;
+        for (int cell = 0; cell < m*n; ++cell) {
+            int count = 0;
+            for (int i = 0; i < 8; ++i) {
+                int newRow = cell / n + _xDirections[i];
+                int newCol = cell % n + _yDirections[i];
+                if (newRow >= 0 && newRow < m && newCol >= 0 && newCol < n) {
+                    scratch.neighbors[cell*8 + count++] = newRow*n + newCol;
                 }
-                findAllValidWords(board, m, n, row, col, s, foundWords, baseNode, visitedPos);
-                visitedPos[row*n+ col] = false;
             }
+            scratch.degree[cell] = count;
+        }
+    }
+
+    // search the prepared board, appending the words found to foundWords unless it is null;
+    // the scores are left in the scratch
+    private Scratch findAllValidWords(Scratch scratch, List<String> foundWords) {
+        for (int start = 0; start < scratch.cells; ++start) {
+            findAllValidWords(start, foundWords, scratch);
         }
+        return scratch;
+    }
+
+    private static Solution solution(Scratch scratch, List<String> words) {
+        return new Solution(words, Arrays.copyOf(scratch.wordScores, scratch.wordCount), scratch.score);
+    }
+
+    // Returns the set of all valid words in the given Boggle board, as an Iterable.
+    public Iterable<String> getAllValidWords(BoggleBoard board) {
+        List<String> foundWords = new ArrayList<String>(64);
+        findAllValidWords(prepareBoard(board), foundWords);
         return foundWords;
     }
 
+    // Returns the words on the given board and their scores; safe to call from any thread.
+    public Solution solve(BoggleBoard board) {
+        List<String> words = new ArrayList<String>(64);
+        return solution(findAllValidWords(prepareBoard(board), words), words);
+    }
+
+    // Solves a rectangular grid of tiles, each one or more letters of the solver's alphabet;
+    // a path may use each tile once.
+    public Solution solve(String[][] tiles) {
+        List<String> words = new ArrayList<String>(64);
+        return solution(findAllValidWords(prepareBoard(tiles), words), words);
+    }
+
+    // Returns the total score of the given board without creating any word strings.
+    public int totalScore(BoggleBoard board) {
+        return findAllValidWords(prepareBoard(board), null).score;
+    }
+
+    public int totalScore(String[][] tiles) {
+        return findAllValidWords(prepareBoard(tiles), null).score;
+    }
+
+    // Solves every board on the common fork-join pool, sharing the dictionary between workers;
+    // the i-th solution belongs to the i-th board.
+    public List<Solution> solveAll(List<BoggleBoard> boards) {
+        if (boards == null) throw new IllegalArgumentException("Null boards");
+        return boards.parallelStream().map(this::solve).collect(Collectors.toList());
+    }
+
+    // Streaming variant of solveAll: boards are solved as the stream is consumed, in parallel
+    // when the given stream is parallel.
+    public Stream<Solution> solveAll(Stream<BoggleBoard> boards) {
+        if (boards == null) throw new IllegalArgumentException("Null boards");
+        return boards.map(this::solve);
+    }
+
     // Returns the score of the given word if it is in the dictionary, zero otherwise.
     // (You can assume the word contains only the uppercase letters A through Z.)
     public int scoreOf(String word) {
         if (word == null) throw new IllegalArgumentException("Null word");
-        if (!_dictTrie.contains(word)) return 0;
-        int length = word.length();
+        if (!contains(word)) return 0;
+        return scoreOfLength(word.length());
+    }
+
+    static int scoreOfLength(int length) {
         if (length < 3) return 0;
         else if (length <= 4) return 1;
         else if (length <= 5) return 2;
@@ -166,14 +612,11 @@ public class BoggleSolver {
         String[] dictionary = in.readAllStrings();
         BoggleSolver solver = new BoggleSolver(dictionary);
         BoggleBoard board = new BoggleBoard(args[1]);
-        int score = 0;
-        int cnt = 0;
-        for (String word : solver.getAllValidWords(board)) {
+        Solution solution = solver.solve(board);
+        for (String word : solution.words()) {
             StdOut.println(word);
-            ++cnt;
-            score += solver.scoreOf(word);
         }
-        StdOut.println("Count = " + cnt);
-        StdOut.println("Score = " + score);
+        StdOut.println("Count = " + solution.words().size());
+        StdOut.println("Score = " + solution.score());
     }
 }
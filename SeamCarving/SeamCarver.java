@@ -1,61 +1,239 @@
-import java.awt.Color;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import edu.princeton.cs.algs4.Picture;
 
 public class SeamCarver {
-    private Picture _pic;
+    // smallest number of cells handed to one parallel task when computing energies
+    private static final int PARALLEL_GRAIN = 4096;
+    // smallest number of cells of one seam DP row handed to one parallel task
+    private static final int MIN_ROW_GRAIN = 256;
+    // pools shared by all carvers created with the same parallelism
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> SHARED_POOLS =
+        new ConcurrentHashMap<Integer, ForkJoinPool>();
+
+    // pixels packed as 0xRRGGBB, row-major with a fixed row stride;
+    // seam removal only shrinks the logical width and height, seam insertion reallocates
+    private int[] _rgb;
     private double[] _energies;
+    private int _stride;
+    private int _width;
+    private int _height;
+    private final EnergyFunction _energyFunction;
+    // cumulative path-energy table and back-pointer offsets (-1/0/+1) kept between seam
+    // operations; same stride layout as _energies, for seams of one orientation
+    private double[] _pathEnergy;
+    private byte[] _pathFrom;
+    private boolean _pathTableValid;
+    private boolean _pathTableVertical;
+    // path-table cells reused from the previous seam operation vs. recomputed
+    private long _pathCacheHits;
+    private long _pathCacheMisses;
+    // seams removed by banded batch calls from the current and the previous frame, in removal
+    // order; the previous frame's seams guide banded searches in the current one
+    private ArrayList<int[]> _frameVerticalSeams = new ArrayList<int[]>();
+    private ArrayList<int[]> _frameHorizontalSeams = new ArrayList<int[]>();
+    private ArrayList<int[]> _previousVerticalSeams = new ArrayList<int[]>();
+    private ArrayList<int[]> _previousHorizontalSeams = new ArrayList<int[]>();
+    // null when running sequentially
+    private final ForkJoinPool _pool;
 
 
     // create a seam carver object based on the given picture
     public SeamCarver(Picture picture) {
-        if (picture == null) {
+        this(picture, EnergyFunction.DUAL_GRADIENT, 1);
+    }
+
+    // create a seam carver that computes energies and relaxes seam DP rows on up to
+    // parallelism threads, from a pool shared with every other carver of the same parallelism;
+    // results match the sequential carver exactly
+    public SeamCarver(Picture picture, int parallelism) {
+        this(picture, EnergyFunction.DUAL_GRADIENT, parallelism);
+    }
+
+    // create a seam carver that ranks seams with the given energy function
+    public SeamCarver(Picture picture, EnergyFunction energyFunction) {
+        this(picture, energyFunction, 1);
+    }
+
+    public SeamCarver(Picture picture, EnergyFunction energyFunction, int parallelism) {
+        this(picture, energyFunction, sharedPool(parallelism));
+    }
+
+    // create a seam carver that runs its parallel work in the given pool, which the caller
+    // owns and shuts down; a null pool runs sequentially
+    public SeamCarver(Picture picture, EnergyFunction energyFunction, ForkJoinPool pool) {
+        if (picture == null || energyFunction == null) {
+            throw new IllegalArgumentException("null input");
+        }
+        _energyFunction = energyFunction;
+        _pool = pool;
+        _width = picture.width();
+        _height = picture.height();
+        _stride = _width;
+        _rgb = new int[_stride*_height];
+        readPixels(picture, _rgb, _stride);
+        _energies = new double[_stride*_height];
+        calculateAllEnergies();
+    }
+
+    private static ForkJoinPool sharedPool(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        if (parallelism == 1) return null;
+        return SHARED_POOLS.computeIfAbsent(parallelism, ForkJoinPool::new);
+    }
+
+    private static void readPixels(Picture picture, int[] rgb, int stride) {
+        for (int y = 0; y < picture.height(); ++y) {
+            for (int x = 0; x < picture.width(); ++x) {
+                rgb[y*stride + x] = picture.getRGB(x, y) & 0xFFFFFF;
+            }
+        }
+    }
+
+    // replace the current picture with the next frame of a video stream, reusing the existing
+    // buffers when the frame fits in them; seams removed from the frame being replaced become
+    // the guides for banded seam searches in the new one
+    public void nextFrame(Picture frame) {
+        if (frame == null) {
             throw new IllegalArgumentException("null input");
         }
-        _pic = new Picture(picture);
-        _energies = new double[_pic.width()*_pic.height()];
-        calculateAllEnergies(_pic, _energies);
+        int w = frame.width();
+        int h = frame.height();
+        if (w <= _stride && (long) h*_stride <= _rgb.length) {
+            readPixels(frame, _rgb, _stride);
+            _width = w;
+            _height = h;
+            _pathTableValid = false;
+            calculateAllEnergies();
+        }
+        else {
+            int[] rgb = new int[w*h];
+            readPixels(frame, rgb, w);
+            replaceBuffers(rgb, w, h);
+        }
+        ArrayList<int[]> tmp = _previousVerticalSeams;
+        _previousVerticalSeams = _frameVerticalSeams;
+        _frameVerticalSeams = tmp;
+        _frameVerticalSeams.clear();
+        tmp = _previousHorizontalSeams;
+        _previousHorizontalSeams = _frameHorizontalSeams;
+        _frameHorizontalSeams = tmp;
+        _frameHorizontalSeams.clear();
     }
 
-    private static void calculateAllEnergies(Picture pic, double[] energies) {
-        for (int x = 0; x < pic.width(); ++x) {
-            for (int y = 0; y < pic.height(); ++y) {
-                calculateSingleEnergy(x, y, pic, energies);
+    // copy used as scratch space when choosing seams to insert
+    private SeamCarver(SeamCarver other) {
+        _pool = other._pool;
+        _energyFunction = other._energyFunction;
+        _width = other._width;
+        _height = other._height;
+        _stride = other._stride;
+        _rgb = other._rgb.clone();
+        _energies = other._energies.clone();
+    }
+
+    // runs action over [0, n), split into chunks of at least grain indices when a pool is set
+    private interface RangeAction {
+        void run(int lo, int hi);
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final RangeAction action;
+        private final int lo;
+        private final int hi;
+        private final int grain;
+
+        RangeTask(RangeAction action, int lo, int hi, int grain) {
+            this.action = action;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grain) {
+                action.run(lo, hi);
+            }
+            else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new RangeTask(action, lo, mid, grain), new RangeTask(action, mid, hi, grain));
             }
         }
     }
 
-    private static void calculateSingleEnergy(int x, int y, Picture pic, double[] energies) {
-        if (x == 0 || y == 0 || x == pic.width()-1 || y == pic.height()-1) {
-            energies[calculateIndex(x,y, pic.width(), pic.height())] = 1000.;
+    private void forEachChunk(int n, int grain, RangeAction action) {
+        if (_pool == null || n <= grain) {
+            action.run(0, n);
         }
         else {
-            Color xm1 = pic.get(x-1, y);
-            Color xp1 = pic.get(x+1, y);
-            Color ym1 = pic.get(x, y-1);
-            Color yp1 = pic.get(x, y+1);
-            double dxSq = (xm1.getRed() - xp1.getRed())*(xm1.getRed() - xp1.getRed()) +
-                          (xm1.getGreen() - xp1.getGreen())*(xm1.getGreen() - xp1.getGreen()) +
-                          (xm1.getBlue() - xp1.getBlue())*(xm1.getBlue() - xp1.getBlue());
-            double dySq = (ym1.getRed() - yp1.getRed())*(ym1.getRed() - yp1.getRed()) +
-                          (ym1.getGreen() - yp1.getGreen())*(ym1.getGreen() - yp1.getGreen()) +
-                          (ym1.getBlue() - yp1.getBlue())*(ym1.getBlue() - yp1.getBlue());
-            energies[calculateIndex(x,y, pic.width(), pic.height())] = Math.sqrt(dxSq + dySq);
+            _pool.invoke(new RangeTask(action, 0, n, grain));
+        }
+    }
+
+    // chunk size that splits a seam DP row of n cells evenly across the pool's threads
+    private int rowGrain(int n) {
+        if (_pool == null) return n;
+        int parallelism = _pool.getParallelism();
+        return Math.max(MIN_ROW_GRAIN, (n + parallelism - 1) / parallelism);
+    }
+
+    private void calculateAllEnergies() {
+        // tiles are bands of whole rows
+        int rowsPerTile = Math.max(1, PARALLEL_GRAIN / _width);
+        double border = _energyFunction.borderEnergy();
+        forEachChunk(_height, rowsPerTile, (lo, hi) -> {
+            for (int y = lo; y < hi; ++y) {
+                int row = y*_stride;
+                if (y == 0 || y == _height-1) {
+                    for (int x = 0; x < _width; ++x) {
+                        _energies[row + x] = border;
+                    }
+                }
+                else {
+                    _energies[row] = border;
+                    _energies[row + _width-1] = border;
+                    _energyFunction.interiorEnergies(_rgb, row, _stride, 1, _width-1, _energies);
+                }
+            }
+        });
+    }
+
+    private void calculateSingleEnergy(int x, int y) {
+        int index = calculateIndex(x, y);
+        if (x == 0 || y == 0 || x == _width-1 || y == _height-1) {
+            _energies[index] = _energyFunction.borderEnergy();
+        }
+        else {
+            _energyFunction.interiorEnergies(_rgb, y*_stride, _stride, x, x+1, _energies);
         }
     }
 
     // current picture
     public Picture picture() {
-        return new Picture(_pic);
+        Picture pic = new Picture(_width, _height);
+        for (int y = 0; y < _height; ++y) {
+            for (int x = 0; x < _width; ++x) {
+                pic.setRGB(x, y, _rgb[y*_stride + x]);
+            }
+        }
+        return pic;
     }
 
     // width of current picture
     public int width() {
-        return _pic.width();
+        return _width;
     }
 
     // height of current picture
     public int height() {
-        return _pic.height();
+        return _height;
     }
 
     private static void checkBound(int a, int bound) {
@@ -64,87 +242,151 @@ public class SeamCarver {
         }
     }
 
-    private static int calculateIndex(int x, int y, int w, int h) {
-        checkBound(x, w);
-        checkBound(y, h);
-        return y*w + x;
+    private int calculateIndex(int x, int y) {
+        checkBound(x, _width);
+        checkBound(y, _height);
+        return y*_stride + x;
+    }
+
+    private static void checkSeam(int[] seam, int length, int bound) {
+        if (seam == null) {
+            throw new IllegalArgumentException("Null input");
+        }
+        if (seam.length != length) {
+            throw new IllegalArgumentException("Out of bounds");
+        }
+        for (int i = 0; i < length; ++i) {
+            checkBound(seam[i], bound);
+            if (i >= 1) {
+                if (Math.abs(seam[i] - seam[i-1]) > 1) {
+                    throw new IllegalArgumentException("bad seam");
+                }
+            }
+        }
     }
 
     // energy of pixel at column x and row y
     public double energy(int x, int y) {
-        return _energies[calculateIndex(x, y, width(), height())];
+        return _energies[calculateIndex(x, y)];
     }
 
-    // sequence of indices for horizontal seam
-    public int[] findHorizontalSeam() {
-        transpose();
-        int[] seam = findVerticalSeam();
-        transpose();
-        return seam;
+    // relax one cell of the path table from its parents on the previous line; j is the cell's
+    // position across the seam direction and only parents in [parentLo, parentHi] are considered
+    private double relaxCell(int index, int j, int parentLo, int parentHi, int stepAlong, int stepAcross) {
+        double e = _energies[index];
+        int parent = index - stepAlong;
+        double best = Double.POSITIVE_INFINITY;
+        byte offset = 0;
+        if (j > parentLo && j-1 <= parentHi) {
+            best = _pathEnergy[parent - stepAcross] + e;
+            offset = -1;
+        }
+        double candidate = _pathEnergy[parent] + e;
+        if (j >= parentLo && j <= parentHi && candidate < best) {
+            best = candidate;
+            offset = 0;
+        }
+        if (j+1 >= parentLo && j < parentHi) {
+            candidate = _pathEnergy[parent + stepAcross] + e;
+            if (candidate < best) {
+                best = candidate;
+                offset = 1;
+            }
+        }
+        _pathEnergy[index] = best;
+        _pathFrom[index] = offset;
+        return best;
     }
 
-    private void transpose() {
-        int newWidth = _pic.height();
-        int newHeight = _pic.width();
-        int oldWidth = _pic.width();
-        int oldHeight = _pic.height();
-        Picture newPic = new Picture(newWidth, newHeight);
-        double[] energies = new double[newWidth*newHeight];
-        for (int newX = 0; newX < newWidth; ++newX) {
-            for (int newY = 0; newY < newHeight; ++newY) {
-                int oldX = newY;
-                int oldY = newX;
-                newPic.set(newX, newY, _pic.get(oldX, oldY));
-                energies[calculateIndex(newX, newY, newWidth, newHeight)] = _energies[calculateIndex(oldX, oldY, oldWidth, oldHeight)];
-            }
+    private void ensurePathTable() {
+        if (_pathEnergy == null) {
+            _pathEnergy = new double[_rgb.length];
+            _pathFrom = new byte[_rgb.length];
         }
-        _pic = newPic;
-        _energies = energies;
     }
 
-    // sequence of indices for vertical seam
-    public int[] findVerticalSeam() {
-        int[][] cellTo = new int[width()][height()];
-        double[][] pathEnergy = new double[width()][height()];
-        for (int y = 0; y < height(); ++y) {
-            for (int x = 0; x < width(); ++x) {
-                pathEnergy[x][y] = Double.POSITIVE_INFINITY;
-            }
-        }
-        int[] dxs = new int[3];
-        dxs[0] = -1;
-        dxs[1] = 0;
-        dxs[2] = 1;
-
-        int minX = 0;
-        double minPathEnergy = Double.POSITIVE_INFINITY;
-        for (int y = 0; y < height()-1; ++y) {
-            for (int x = 0; x < width(); ++x) {
-                if (y == 0) {
-                    pathEnergy[x][y] = 1000.;
-                    cellTo[x][y] = -1;
+    // fill the whole path table for seams of the given orientation
+    private void buildPathTable(boolean vertical) {
+        ensurePathTable();
+        int along = vertical ? _height : _width;
+        int across = vertical ? _width : _height;
+        int stepAlong = vertical ? _stride : 1;
+        int stepAcross = vertical ? 1 : _stride;
+        for (int j = 0; j < across; ++j) {
+            _pathEnergy[j*stepAcross] = _energies[j*stepAcross];
+        }
+        int grain = rowGrain(across);
+        for (int i = 1; i < along; ++i) {
+            int line = i*stepAlong;
+            forEachChunk(across, grain, (lo, hi) -> {
+                for (int j = lo; j < hi; ++j) {
+                    relaxCell(line + j*stepAcross, j, 0, across-1, stepAlong, stepAcross);
                 }
-                int nextY = y+1;
-                for (int dx : dxs) {
-                    int newX = x + dx;
-                    if (newX >= 0 && newX < width()) {
-                        double newPathEnergy = pathEnergy[x][y] + _energies[calculateIndex(newX, nextY, width(), height())];
-                        if (newPathEnergy < pathEnergy[newX][nextY]) {
-                            pathEnergy[newX][nextY] = newPathEnergy;
-                            cellTo[newX][nextY] = x;
-                        }
+            });
+        }
+        _pathTableValid = true;
+        _pathTableVertical = vertical;
+        _pathCacheMisses += (long) along*across;
+    }
+
+    // after a seam of the table's orientation has been removed and the table shifted like the
+    // pixels, recompute only the cells inside the removed seam's cone of influence; the cone is
+    // cut off as soon as a line's recomputed path energies come out unchanged
+    private void updatePathTable(int[] seam) {
+        boolean vertical = _pathTableVertical;
+        int along = vertical ? _height : _width;
+        int across = vertical ? _width : _height;
+        int stepAlong = vertical ? _stride : 1;
+        int stepAcross = vertical ? 1 : _stride;
+        // [changedLo, changedHi] bounds the cells of the previous line whose path energy changed
+        int changedLo = 0;
+        int changedHi = -1;
+        long recomputed = 0;
+        for (int i = 1; i < along; ++i) {
+            // cells next to the seam have new energies or new parents
+            int lo = seam[i] - 2;
+            int hi = seam[i] + 1;
+            if (changedLo <= changedHi) {
+                lo = Math.min(lo, changedLo - 1);
+                hi = Math.max(hi, changedHi + 1);
+            }
+            lo = Math.max(lo, 0);
+            hi = Math.min(hi, across - 1);
+            changedLo = 0;
+            changedHi = -1;
+            recomputed += hi - lo + 1;
+            int line = i*stepAlong;
+            for (int j = lo; j <= hi; ++j) {
+                int index = line + j*stepAcross;
+                double old = _pathEnergy[index];
+                if (relaxCell(index, j, 0, across-1, stepAlong, stepAcross) != old) {
+                    if (changedLo > changedHi) {
+                        changedLo = j;
                     }
+                    changedHi = j;
                 }
-                if (y == height()-2 && pathEnergy[x][y+1] < minPathEnergy) {
-                    minPathEnergy = pathEnergy[x][y+1];
-                    minX = x;
-                }
             }
         }
-        int[] seam = new int[height()];
-        seam[height()-1] = minX;
-        for (int y = height()-2; y >= 0; --y) {
-            seam[y] = cellTo[seam[y+1]][y+1];
+        _pathCacheMisses += recomputed;
+        _pathCacheHits += (long) along*across - recomputed;
+    }
+
+    // cheapest seam according to the path table, ending at a position in [lo, hi] on the last line
+    private int[] traceSeam(boolean vertical, int lo, int hi) {
+        int along = vertical ? _height : _width;
+        int stepAlong = vertical ? _stride : 1;
+        int stepAcross = vertical ? 1 : _stride;
+        int last = (along-1)*stepAlong;
+        int minJ = lo;
+        for (int j = lo+1; j <= hi; ++j) {
+            if (_pathEnergy[last + j*stepAcross] < _pathEnergy[last + minJ*stepAcross]) {
+                minJ = j;
+            }
+        }
+        int[] seam = new int[along];
+        seam[along-1] = minJ;
+        for (int i = along-1; i >= 1; --i) {
+            seam[i-1] = seam[i] + _pathFrom[i*stepAlong + seam[i]*stepAcross];
         }
         if (seam.length >= 2) {
             seam[0] = seam[1];
@@ -152,69 +394,297 @@ public class SeamCarver {
         return seam;
     }
 
+    // cheapest seam that stays within radius positions of guide on every line; only the band
+    // is relaxed, so the search costs O(length * radius) and overwrites the retained path table
+    private int[] findSeamInBand(boolean vertical, int[] guide, int radius) {
+        ensurePathTable();
+        _pathTableValid = false;
+        int along = vertical ? _height : _width;
+        int across = vertical ? _width : _height;
+        int stepAlong = vertical ? _stride : 1;
+        int stepAcross = vertical ? 1 : _stride;
+        int prevLo = 0;
+        int prevHi = -1;
+        for (int i = 0; i < along; ++i) {
+            // clamping keeps consecutive bands overlapping, so every band cell has a parent
+            int g = Math.min(Math.max(guide[i], 0), across-1);
+            int lo = Math.max(g - radius, 0);
+            int hi = Math.min(g + radius, across-1);
+            int line = i*stepAlong;
+            for (int j = lo; j <= hi; ++j) {
+                int index = line + j*stepAcross;
+                if (i == 0) {
+                    _pathEnergy[index] = _energies[index];
+                }
+                else {
+                    relaxCell(index, j, prevLo, prevHi, stepAlong, stepAcross);
+                }
+            }
+            _pathCacheMisses += hi - lo + 1;
+            prevLo = lo;
+            prevHi = hi;
+        }
+        return traceSeam(vertical, prevLo, prevHi);
+    }
+
+    // sequence of indices for horizontal seam
+    public int[] findHorizontalSeam() {
+        if (!_pathTableValid || _pathTableVertical) {
+            buildPathTable(false);
+        }
+        return traceSeam(false, 0, _height-1);
+    }
+
+    // sequence of indices for vertical seam
+    public int[] findVerticalSeam() {
+        if (!_pathTableValid || !_pathTableVertical) {
+            buildPathTable(true);
+        }
+        return traceSeam(true, 0, _width-1);
+    }
+
+    // number of path-table cells reused since construction instead of being recomputed
+    public long pathCacheHits() {
+        return _pathCacheHits;
+    }
+
+    // number of path-table cells computed since construction
+    public long pathCacheMisses() {
+        return _pathCacheMisses;
+    }
+
     // remove horizontal seam from current picture
     public void removeHorizontalSeam(int[] seam) {
-        if (seam == null) {
-            throw new IllegalArgumentException("Null input");
+        checkSeam(seam, _width, _height);
+        boolean keepTable = _pathTableValid && !_pathTableVertical;
+        _pathTableValid = keepTable;
+        // shift the part of each column below the seam up by one row
+        for (int x = 0; x < _width; ++x) {
+            for (int y = seam[x]; y < _height-1; ++y) {
+                int index = y*_stride + x;
+                _rgb[index] = _rgb[index + _stride];
+                _energies[index] = _energies[index + _stride];
+                if (keepTable) {
+                    _pathEnergy[index] = _pathEnergy[index + _stride];
+                    _pathFrom[index] = _pathFrom[index + _stride];
+                }
+            }
         }
-        if (seam.length != _pic.width()) {
-            throw new IllegalArgumentException("Out of bounds");
+        --_height;
+        for (int x = 0; x < _width; ++x) {
+            int newY = seam[x]-1;
+            if (newY >= 0 && newY < _height) {
+                calculateSingleEnergy(x, newY);
+            }
+            newY = seam[x];
+            if (newY >= 0 && newY < _height) {
+                calculateSingleEnergy(x, newY);
+            }
+        }
+        if (keepTable) {
+            updatePathTable(seam);
         }
-        transpose();
-        removeVerticalSeam(seam);
-        transpose();
     }
 
     // remove vertical seam from current picture
     public void removeVerticalSeam(int[] seam) {
-        if (seam == null) {
-            throw new IllegalArgumentException("Null input");
+        checkSeam(seam, _height, _width);
+        boolean keepTable = _pathTableValid && _pathTableVertical;
+        _pathTableValid = keepTable;
+        // shift the part of each row right of the seam left by one column
+        for (int y = 0; y < _height; ++y) {
+            int skipIndex = y*_stride + seam[y];
+            int tail = _width - seam[y] - 1;
+            System.arraycopy(_rgb, skipIndex + 1, _rgb, skipIndex, tail);
+            System.arraycopy(_energies, skipIndex + 1, _energies, skipIndex, tail);
+            if (keepTable) {
+                System.arraycopy(_pathEnergy, skipIndex + 1, _pathEnergy, skipIndex, tail);
+                System.arraycopy(_pathFrom, skipIndex + 1, _pathFrom, skipIndex, tail);
+            }
+        }
+        --_width;
+        for (int y = 0; y < _height; ++y) {
+            int newX = seam[y]-1;
+            if (newX >= 0 && newX < _width) {
+                calculateSingleEnergy(newX, y);
+            }
+            newX = seam[y];
+            if (newX >= 0 && newX < _width) {
+                calculateSingleEnergy(newX, y);
+            }
+        }
+        if (keepTable) {
+            updatePathTable(seam);
         }
-        if (seam.length != _pic.height()) {
+    }
+
+    // remove k horizontal seams, updating the seam DP incrementally between removals
+    public void removeHorizontalSeams(int k) {
+        removeHorizontalSeams(k, -1);
+    }
+
+    // remove k horizontal seams as part of a frame stream: when bandRadius >= 0 the seams are
+    // remembered for the next frame, and each seam that has a counterpart removed from the
+    // previous frame (see nextFrame) is searched only within bandRadius rows of it
+    public void removeHorizontalSeams(int k, int bandRadius) {
+        if (k < 0 || k >= _height) {
             throw new IllegalArgumentException("Out of bounds");
         }
-        int newWidth = _pic.width()-1;
-        int newHeight = _pic.height();
-        double[] newEnergy = new double[newWidth*newHeight];
-        Picture newPic = new Picture(newWidth, newHeight);
-        for (int y = 0; y < _pic.height(); ++y) {
-            int skipX = seam[y];
-            checkBound(skipX, _pic.width());
-            if (y >= 1) {
-                if (Math.abs(skipX - seam[y-1]) > 1) {
-                    throw new IllegalArgumentException("bad seam");
-                }
+        for (int i = 0; i < k; ++i) {
+            int[] seam;
+            if (bandRadius >= 0 && i < _previousHorizontalSeams.size()
+                    && _previousHorizontalSeams.get(i).length == _width) {
+                seam = findSeamInBand(false, _previousHorizontalSeams.get(i), bandRadius);
             }
-            for (int x = 0; x < _pic.width(); ++x) {
-                // x = [0, skipX)
-                if (x < skipX) {
-                    int newIndex = calculateIndex(x, y, newWidth, newHeight);
-                    int oldIndex = calculateIndex(x, y, width(), height());
-                    newEnergy[newIndex] = _energies[oldIndex];
-                    newPic.set(x, y, _pic.get(x,y));
-                }
-                else if (x == skipX) continue;
-                // x = [skipX+1, oldWidth);
-                else {
-                    int newIndex = calculateIndex(x-1, y, newWidth, newHeight);
-                    int oldIndex = calculateIndex(x, y, width(), height());
-                    newEnergy[newIndex] = _energies[oldIndex];
-                    newPic.set(x-1, y, _pic.get(x,y));
+            else {
+                seam = findHorizontalSeam();
+            }
+            if (bandRadius >= 0) {
+                _frameHorizontalSeams.add(seam);
+            }
+            removeHorizontalSeam(seam);
+        }
+    }
+
+    // remove k vertical seams, updating the seam DP incrementally between removals
+    public void removeVerticalSeams(int k) {
+        removeVerticalSeams(k, -1);
+    }
+
+    // remove k vertical seams as part of a frame stream: when bandRadius >= 0 the seams are
+    // remembered for the next frame, and each seam that has a counterpart removed from the
+    // previous frame (see nextFrame) is searched only within bandRadius columns of it
+    public void removeVerticalSeams(int k, int bandRadius) {
+        if (k < 0 || k >= _width) {
+            throw new IllegalArgumentException("Out of bounds");
+        }
+        for (int i = 0; i < k; ++i) {
+            int[] seam;
+            if (bandRadius >= 0 && i < _previousVerticalSeams.size()
+                    && _previousVerticalSeams.get(i).length == _height) {
+                seam = findSeamInBand(true, _previousVerticalSeams.get(i), bandRadius);
+            }
+            else {
+                seam = findVerticalSeam();
+            }
+            if (bandRadius >= 0) {
+                _frameVerticalSeams.add(seam);
+            }
+            removeVerticalSeam(seam);
+        }
+    }
+
+    // carve the current picture down to targetWidth columns and targetHeight rows
+    public void resizeTo(int targetWidth, int targetHeight) {
+        resizeTo(targetWidth, targetHeight, -1);
+    }
+
+    // resizeTo for frame streams: seams are searched within bandRadius of the previous frame's
+    public void resizeTo(int targetWidth, int targetHeight, int bandRadius) {
+        checkBound(targetWidth - 1, _width);
+        checkBound(targetHeight - 1, _height);
+        removeVerticalSeams(_width - targetWidth, bandRadius);
+        removeHorizontalSeams(_height - targetHeight, bandRadius);
+    }
+
+    // per-channel average of two packed pixels
+    private static int averageRGB(int a, int b) {
+        return ((a >> 1) & 0x7F7F7F) + ((b >> 1) & 0x7F7F7F) + (a & b & 0x010101);
+    }
+
+    // switch to freshly allocated buffers holding the enlarged picture
+    private void replaceBuffers(int[] rgb, int width, int height) {
+        _rgb = rgb;
+        _width = width;
+        _height = height;
+        _stride = width;
+        _energies = new double[rgb.length];
+        _pathEnergy = null;
+        _pathFrom = null;
+        _pathTableValid = false;
+        calculateAllEnergies();
+    }
+
+    // widen the picture by k columns: the k cheapest vertical seams are found in one pass over
+    // a scratch copy, then each seam pixel is followed by the average of it and its right neighbor
+    public void insertVerticalSeams(int k) {
+        if (k < 0 || k >= _width) {
+            throw new IllegalArgumentException("Out of bounds");
+        }
+        if (k == 0) return;
+        SeamCarver scratch = new SeamCarver(this);
+        // original column of every pixel still present in the scratch copy
+        int[] sourceX = new int[_stride*_height];
+        for (int y = 0; y < _height; ++y) {
+            for (int x = 0; x < _width; ++x) {
+                sourceX[y*_stride + x] = x;
+            }
+        }
+        boolean[] duplicate = new boolean[_stride*_height];
+        for (int i = 0; i < k; ++i) {
+            int[] seam = scratch.findVerticalSeam();
+            for (int y = 0; y < _height; ++y) {
+                int skipIndex = y*_stride + seam[y];
+                duplicate[y*_stride + sourceX[skipIndex]] = true;
+                System.arraycopy(sourceX, skipIndex + 1, sourceX, skipIndex, scratch._width - seam[y] - 1);
+            }
+            scratch.removeVerticalSeam(seam);
+        }
+        int newWidth = _width + k;
+        int[] rgb = new int[newWidth*_height];
+        for (int y = 0; y < _height; ++y) {
+            int row = y*_stride;
+            int newIndex = y*newWidth;
+            for (int x = 0; x < _width; ++x) {
+                int pixel = _rgb[row + x];
+                rgb[newIndex++] = pixel;
+                if (duplicate[row + x]) {
+                    rgb[newIndex++] = x+1 < _width ? averageRGB(pixel, _rgb[row + x+1]) : pixel;
                 }
             }
         }
-        for (int y = 0; y < _pic.height(); ++y) {
-            int newX = seam[y]-1;
-            if (newX >= 0 && newX < newWidth) {
-                calculateSingleEnergy(newX, y, newPic, newEnergy);
+        replaceBuffers(rgb, newWidth, _height);
+    }
+
+    // heighten the picture by k rows: the k cheapest horizontal seams are found in one pass over
+    // a scratch copy, then each seam pixel is followed by the average of it and the pixel below
+    public void insertHorizontalSeams(int k) {
+        if (k < 0 || k >= _height) {
+            throw new IllegalArgumentException("Out of bounds");
+        }
+        if (k == 0) return;
+        SeamCarver scratch = new SeamCarver(this);
+        // original row of every pixel still present in the scratch copy
+        int[] sourceY = new int[_stride*_height];
+        for (int y = 0; y < _height; ++y) {
+            for (int x = 0; x < _width; ++x) {
+                sourceY[y*_stride + x] = y;
             }
-            newX = seam[y];
-            if (newX >= 0 && newX < newWidth) {
-                calculateSingleEnergy(newX, y, newPic, newEnergy);
+        }
+        boolean[] duplicate = new boolean[_stride*_height];
+        for (int i = 0; i < k; ++i) {
+            int[] seam = scratch.findHorizontalSeam();
+            for (int x = 0; x < _width; ++x) {
+                duplicate[sourceY[seam[x]*_stride + x]*_stride + x] = true;
+                for (int y = seam[x]; y < scratch._height-1; ++y) {
+                    sourceY[y*_stride + x] = sourceY[(y+1)*_stride + x];
+                }
+            }
+            scratch.removeHorizontalSeam(seam);
+        }
+        int newHeight = _height + k;
+        int[] rgb = new int[_width*newHeight];
+        for (int x = 0; x < _width; ++x) {
+            int newY = 0;
+            for (int y = 0; y < _height; ++y) {
+                int pixel = _rgb[y*_stride + x];
+                rgb[newY++*_width + x] = pixel;
+                if (duplicate[y*_stride + x]) {
+                    rgb[newY++*_width + x] = y+1 < _height ? averageRGB(pixel, _rgb[(y+1)*_stride + x]) : pixel;
+                }
             }
         }
-        _pic = newPic;
-        _energies = newEnergy;
+        replaceBuffers(rgb, _width, newHeight);
     }
 
    //  unit testing (optional)
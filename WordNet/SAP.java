@@ -1,102 +1,230 @@
+import java.util.Arrays;
 import java.util.Iterator;
-import edu.princeton.cs.algs4.BreadthFirstDirectedPaths;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import edu.princeton.cs.algs4.Digraph;
 import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdIn;
 import edu.princeton.cs.algs4.StdOut;
 
+// Safe to query from any number of threads: the graph is immutable after construction and each
+// query borrows a Search (BFS buffers plus the last-query caches) from a pool, so concurrent
+// queries never share mutable state and the pool only grows to the peak number of concurrent
+// queries, however many threads (virtual or not) take turns issuing them.
 public class SAP {
-    private final Digraph _G;
-    private int _cachedV;
-    private int _cachedW;
-    private int _cachedSingleLengh;
-    private int _cachedSingleAncestor;
-    private Iterable<Integer> _cachedIterV;
-    private Iterable<Integer> _cachedIterW;
-    private BreadthFirstDirectedPaths _cachedVBFS;
-    private BreadthFirstDirectedPaths _cachedWBFS;
-    private int _cachedIterLengh;
-    private int _cachedIterAncestor;
+    // adjacency lists of the digraph, flattened: the successors of v are
+    // _adj[_adjStart[v]] .. _adj[_adjStart[v+1]-1]
+    private final int[] _adjStart;
+    private final int[] _adj;
+    // idle searches, most recently used first so that length() and ancestor() on the same
+    // vertices usually hit the cache of the search that just answered one of them
+    private final ConcurrentLinkedDeque<Search> _searches;
 
     // constructor takes a digraph (not necessarily a DAG)
     public SAP(Digraph G) {
         if (G == null)
             throw new IllegalArgumentException("Cannot initialize SAP with a null Digraph");
-        _G = new Digraph(G);
-        _cachedV = -1;
-        _cachedW = -1;
-        _cachedSingleLengh = -1;
-        _cachedSingleAncestor = -1;
-        _cachedIterV = null;
-        _cachedIterW = null;
-        _cachedIterLengh = -1;
-        _cachedIterAncestor = -1;
+        _adjStart = new int[G.V() + 1];
+        _adj = new int[G.E()];
+        for (int v = 0; v < G.V(); ++v) {
+            int end = _adjStart[v];
+            for (int w : G.adj(v)) {
+                _adj[end++] = w;
+            }
+            _adjStart[v+1] = end;
+        }
+        _searches = new ConcurrentLinkedDeque<Search>();
     }
 
-    private boolean validCheck(Integer v) {
-        if (v == null) return false;
-        return v >= 0 && v < _G.V();
+    // SAP over a graph already flattened as above; the arrays are shared, not copied
+    SAP(int[] adjStart, int[] adj) {
+        _adjStart = adjStart;
+        _adj = adj;
+        _searches = new ConcurrentLinkedDeque<Search>();
     }
 
-    private void doBFS(int v, int w) {
-        if (!validCheck(v) || !validCheck(w)) {
-            throw new IllegalArgumentException("Invalid nodes");
+    private Search acquire() {
+        Search search = _searches.pollFirst();
+        return search != null ? search : new Search(_adjStart.length - 1);
+    }
+
+    private void release(Search search) {
+        _searches.offerFirst(search);
+    }
+
+    // Bidirectional BFS, reused across queries. The searches from v and from w advance a whole
+    // level at a time, the shallower one first, and each stops once its next level could no
+    // longer beat the shortest ancestral path found so far. A vertex's distance from a side only
+    // counts when its stamp matches the current query, so starting a query clears nothing and
+    // a query costs time proportional to the vertices it reaches, without allocating. It also
+    // remembers the last single-vertex and iterable queries it answered.
+    private static class Search {
+        private int cachedV = -1;
+        private int cachedW = -1;
+        private int cachedSingleLengh = -1;
+        private int cachedSingleAncestor = -1;
+        private Iterable<Integer> cachedIterV;
+        private Iterable<Integer> cachedIterW;
+        private int cachedIterLengh = -1;
+        private int cachedIterAncestor = -1;
+        private final Side v;
+        private final Side w;
+        private int stamp;
+        private int length = -1;
+        private int ancestor = -1;
+
+        Search(int V) {
+            v = new Side(V);
+            w = new Side(V);
+        }
+
+        void reset() {
+            if (++stamp == 0) {
+                Arrays.fill(v.stamps, 0);
+                Arrays.fill(w.stamps, 0);
+                stamp = 1;
+            }
+            v.head = v.tail = 0;
+            w.head = w.tail = 0;
+            length = -1;
+            ancestor = -1;
         }
-        _cachedV = v;
-        _cachedW = w;
-        BreadthFirstDirectedPaths vBFS = new BreadthFirstDirectedPaths(_G, v);
-        BreadthFirstDirectedPaths wBFS = new BreadthFirstDirectedPaths(_G, w);
-        _cachedSingleLengh = -1;
-        _cachedSingleAncestor = -1;
-        for (int i = 0; i < _G.V(); ++i) {
-            if (vBFS.hasPathTo(i) && wBFS.hasPathTo(i)) {
-                int currentDist = vBFS.distTo(i) + wBFS.distTo(i);
-                if (currentDist < _cachedSingleLengh || _cachedSingleLengh == -1) {
-                    _cachedSingleLengh = currentDist;
-                    _cachedSingleAncestor = i;
+
+        void addSourceV(int x) {
+            reach(x, 0, v, w);
+        }
+
+        void addSourceW(int x) {
+            reach(x, 0, w, v);
+        }
+
+        void run(int[] adjStart, int[] adj) {
+            int depthV = 0;
+            int depthW = 0;
+            while (true) {
+                boolean expandV = v.head < v.tail && (length == -1 || depthV + 1 < length);
+                boolean expandW = w.head < w.tail && (length == -1 || depthW + 1 < length);
+                if (expandV && (!expandW || depthV <= depthW)) {
+                    expandLevel(adjStart, adj, ++depthV, v, w);
+                }
+                else if (expandW) {
+                    expandLevel(adjStart, adj, ++depthW, w, v);
+                }
+                else {
+                    return;
                 }
             }
         }
-    }
 
-    private void doBFS(Iterable<Integer> v, Iterable<Integer> w, boolean vUnchanged, boolean wUnchanged) {
-        if (vUnchanged && wUnchanged)
-            return;
-        if (!vUnchanged) {
-            _cachedIterV = v;
-            _cachedVBFS = new BreadthFirstDirectedPaths(_G, v);
-        }
-        if (!wUnchanged) {
-            _cachedIterW = w;
-            _cachedWBFS = new BreadthFirstDirectedPaths(_G, w);
-        }
-        _cachedIterLengh = -1;
-        _cachedIterAncestor = -1;
-        for (int i = 0; i < _G.V(); ++i) {
-            if (_cachedVBFS.hasPathTo(i) && _cachedWBFS.hasPathTo(i)) {
-                int currentDist = _cachedVBFS.distTo(i) + _cachedWBFS.distTo(i);
-                if (currentDist < _cachedIterLengh || _cachedIterLengh == -1) {
-                    _cachedIterLengh = currentDist;
-                    _cachedIterAncestor = i;
+        // reach every unvisited successor of the current frontier at the given depth
+        private void expandLevel(int[] adjStart, int[] adj, int depth, Side side, Side other) {
+            for (int levelEnd = side.tail; side.head < levelEnd; ) {
+                int u = side.queue[side.head++];
+                for (int i = adjStart[u]; i < adjStart[u+1]; ++i) {
+                    reach(adj[i], depth, side, other);
                 }
             }
         }
+
+        private void reach(int x, int depth, Side side, Side other) {
+            if (side.stamps[x] == stamp) return;
+            side.stamps[x] = stamp;
+            side.dist[x] = depth;
+            side.queue[side.tail++] = x;
+            if (other.stamps[x] == stamp && (length == -1 || depth + other.dist[x] < length)) {
+                length = depth + other.dist[x];
+                ancestor = x;
+            }
+        }
+    }
+
+    // one direction of a Search; each vertex enters the queue at most once per query
+    private static class Side {
+        private final int[] stamps;
+        private final int[] dist;
+        private final int[] queue;
+        private int head;
+        private int tail;
+
+        Side(int V) {
+            stamps = new int[V];
+            dist = new int[V];
+            queue = new int[V];
+        }
+    }
+
+    private boolean validCheck(Integer v) {
+        if (v == null) return false;
+        return v >= 0 && v < _adjStart.length - 1;
+    }
+
+    private void doBFS(Search search, int v, int w) {
+        if (!validCheck(v) || !validCheck(w)) {
+            throw new IllegalArgumentException("Invalid nodes");
+        }
+        if ((v == search.cachedV && w == search.cachedW) || (v == search.cachedW && w == search.cachedV))
+            return;
+        search.reset();
+        search.addSourceV(v);
+        search.addSourceW(w);
+        search.run(_adjStart, _adj);
+        search.cachedV = v;
+        search.cachedW = w;
+        search.cachedSingleLengh = search.length;
+        search.cachedSingleAncestor = search.ancestor;
+    }
+
+    private void doBFS(Search search, Iterable<Integer> v, Iterable<Integer> w) {
+        if (compareTwoIterables(v, search.cachedIterV) && compareTwoIterables(w, search.cachedIterW))
+            return;
+        search.reset();
+        for (int x : v) search.addSourceV(x);
+        for (int x : w) search.addSourceW(x);
+        search.run(_adjStart, _adj);
+        search.cachedIterV = v;
+        search.cachedIterW = w;
+        search.cachedIterLengh = search.length;
+        search.cachedIterAncestor = search.ancestor;
     }
  
     // length of shortest ancestral path between v and w; -1 if no such path
     public int length(int v, int w) {
-        if (!((v == _cachedV && w == _cachedW) || (v == _cachedW && w == _cachedV))) {
-            doBFS(v, w);
+        Search search = acquire();
+        try {
+            doBFS(search, v, w);
+            return search.cachedSingleLengh;
+        }
+        finally {
+            release(search);
         }
-        return _cachedSingleLengh;
     }
  
     // a common ancestor of v and w that participates in a shortest ancestral path; -1 if no such path
     public int ancestor(int v, int w) {
-        if (!((v == _cachedV && w == _cachedW) || (v == _cachedW && w == _cachedV))) {
-            doBFS(v, w);
+        Search search = acquire();
+        try {
+            doBFS(search, v, w);
+            return search.cachedSingleAncestor;
+        }
+        finally {
+            release(search);
+        }
+    }
+
+    // Shortest ancestral path between any vertex in v and any in w, all known to be valid, as
+    // the length in the high int and the ancestor in the low int (both -1 if there is none).
+    // Bypasses the last-query caches; WordNet keeps its own.
+    long query(int[] v, int[] w) {
+        Search search = acquire();
+        try {
+            search.reset();
+            for (int x : v) search.addSourceV(x);
+            for (int x : w) search.addSourceW(x);
+            search.run(_adjStart, _adj);
+            return ((long) search.length << 32) | (search.ancestor & 0xFFFFFFFFL);
+        }
+        finally {
+            release(search);
         }
-        return _cachedSingleAncestor;
     }
 
     private boolean compareTwoIterables(Iterable<Integer> v1, Iterable<Integer> v2) {
@@ -123,22 +251,28 @@ public class SAP {
     public int length(Iterable<Integer> v, Iterable<Integer> w) {
         if (!validCheck(v) || !validCheck(w)) throw new IllegalArgumentException("Invalid iterables");
         if (!v.iterator().hasNext() || !w.iterator().hasNext()) return -1;
-        doBFS(v,
-              w,
-              compareTwoIterables(v, _cachedIterV),
-              compareTwoIterables(w, _cachedIterW));
-        return _cachedIterLengh;
+        Search search = acquire();
+        try {
+            doBFS(search, v, w);
+            return search.cachedIterLengh;
+        }
+        finally {
+            release(search);
+        }
     }    
  
     // a common ancestor that participates in shortest ancestral path; -1 if no such path
     public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
         if (!validCheck(v) || !validCheck(w)) throw new IllegalArgumentException("Invalid iterables");
         if (!v.iterator().hasNext() || !w.iterator().hasNext()) return -1;
-        doBFS(v,
-              w,
-              compareTwoIterables(v, _cachedIterV),
-              compareTwoIterables(w, _cachedIterW));
-        return _cachedIterAncestor;
+        Search search = acquire();
+        try {
+            doBFS(search, v, w);
+            return search.cachedIterAncestor;
+        }
+        finally {
+            release(search);
+        }
     }
  
     // do unit testing of this class
@@ -1,23 +1,133 @@
-import edu.princeton.cs.algs4.Bag;
-import edu.princeton.cs.algs4.Digraph;
-import edu.princeton.cs.algs4.DirectedCycle;
 import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdIn;
 import edu.princeton.cs.algs4.StdOut;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
 
+// The noun tables are never modified after construction, and SAP queries and the result cache
+// are thread-safe, so one instance can serve distance() and sap() calls from many threads at once.
 public class WordNet {
-    private final HashMap<String, Bag<Integer>> _dict;
-    private final HashMap<Integer, String> _nameLookup;
-    private final Digraph _G;
-    private SAP _sap;
+    private static final int DEFAULT_CACHE_CAPACITY = 1 << 16;
+    // synset ids of each noun
+    private final HashMap<String, int[]> _dict;
+    // all synset names back to back: synset i is _names[_nameStart[i], _nameStart[i+1])
+    private final String _names;
+    private final int[] _nameStart;
+    // hypernym graph, flattened: the hypernyms of synset i are
+    // _hypernyms[_hypernymStart[i]] .. _hypernyms[_hypernymStart[i+1]-1]
+    private final int[] _hypernymStart;
+    private final int[] _hypernyms;
+    private final SAP _sap;
+    // results of distance() and sap() by unordered noun pair; null when caching is off
+    private final ResultCache _cache;
+
+    // Bounded LRU cache of query results, split into independently locked segments so that
+    // concurrent queries rarely contend. Each segment evicts its least recently used pair once it
+    // holds its share of the capacity, and the shares add up to exactly the capacity. Results
+    // are packed as by SAP.query.
+    private static class ResultCache {
+        private final Segment[] segments;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        ResultCache(int capacity) {
+            int count = Integer.highestOneBit(Math.min(16, capacity));
+            segments = new Segment[count];
+            for (int i = 0; i < count; ++i) {
+                segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+            }
+        }
+
+        // cached result for the pair, or null
+        Long get(String nounA, String nounB) {
+            PairKey key = new PairKey(nounA, nounB);
+            Segment segment = segmentFor(key);
+            Long result;
+            synchronized (segment) {
+                result = segment.get(key);
+            }
+            if (result == null) misses.increment();
+            else hits.increment();
+            return result;
+        }
+
+        void put(String nounA, String nounB, long result) {
+            PairKey key = new PairKey(nounA, nounB);
+            Segment segment = segmentFor(key);
+            synchronized (segment) {
+                segment.put(key, result);
+            }
+        }
+
+        private Segment segmentFor(PairKey key) {
+            int h = key.hashCode();
+            return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+        }
+
+        private class Segment extends LinkedHashMap<PairKey, Long> {
+            private static final long serialVersionUID = 1L;
+            private final int capacity;
+
+            Segment(int capacity) {
+                super(16, 0.75f, true);
+                this.capacity = capacity;
+            }
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PairKey, Long> eldest) {
+                if (size() <= capacity) return false;
+                evictions.increment();
+                return true;
+            }
+        }
+    }
+
+    // two nouns in a fixed order, so that (a, b) and (b, a) are the same key
+    private static final class PairKey {
+        private final String first;
+        private final String second;
+
+        PairKey(String nounA, String nounB) {
+            boolean ordered = nounA.compareTo(nounB) <= 0;
+            first = ordered ? nounA : nounB;
+            second = ordered ? nounB : nounA;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PairKey)) return false;
+            PairKey other = (PairKey) o;
+            return first.equals(other.first) && second.equals(other.second);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * first.hashCode() + second.hashCode();
+        }
+    }
+
     // constructor takes the name of the two input files
     public WordNet(String synsets, String hypernyms) {
+        this(synsets, hypernyms, DEFAULT_CACHE_CAPACITY);
+    }
+
+    // as above, caching the results of up to cacheCapacity noun pairs; 0 turns caching off
+    public WordNet(String synsets, String hypernyms, int cacheCapacity) {
+        if (cacheCapacity < 0) throw new IllegalArgumentException("Negative cache capacity");
+        _cache = cacheCapacity == 0 ? null : new ResultCache(cacheCapacity);
         In synsetsFI = new In(synsets);
-        _dict = new HashMap<String, Bag<Integer>>();
-        _nameLookup = new HashMap<Integer, String>();
+        _dict = new HashMap<String, int[]>();
+        // ids and names in file order; ids are only used as indices once they are known to be
+        // exactly 0 to size-1, so a stray huge id cannot size any table
+        int[] ids = new int[16];
+        String[] lineNames = new String[16];
+        int size = 0;
         try {
             while(synsetsFI.hasNextLine()) {
                 String line = synsetsFI.readLine();
@@ -27,16 +137,22 @@ public class WordNet {
                 String synset = breakUp[1];
                 int num = Integer.parseInt(breakUp[0]);
                 String[] synsetBreak = synset.split(" ");
-                _nameLookup.put(num, breakUp[1]);
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, 2*size);
+                    lineNames = Arrays.copyOf(lineNames, 2*size);
+                }
+                ids[size] = num;
+                lineNames[size] = synset;
+                ++size;
                 for (String each : synsetBreak) {
-                    Bag<Integer> foundBag = _dict.get(each);
-                    if (foundBag == null) {
-                        foundBag = new Bag<Integer>();
-                        foundBag.add(num);
-                        _dict.put(each, foundBag);
+                    int[] found = _dict.get(each);
+                    if (found == null) {
+                        _dict.put(each, new int[] { num });
                     }
                     else {
-                        foundBag.add(num);
+                        found = Arrays.copyOf(found, found.length + 1);
+                        found[found.length - 1] = num;
+                        _dict.put(each, found);
                     }
                 }
             }
@@ -44,35 +160,94 @@ public class WordNet {
         catch (NoSuchElementException e) {
             throw new IllegalArgumentException("invalid input format in Digraph constructor", e);
         }
-        int size = _nameLookup.size();
-        _G = new Digraph(size);
+        String[] names = new String[size];
+        for (int i = 0; i < size; ++i) {
+            if (ids[i] < 0 || ids[i] >= size || names[ids[i]] != null) {
+                throw new IllegalArgumentException("Synset ids are not 0 to " + (size - 1));
+            }
+            names[ids[i]] = lineNames[i];
+        }
+        _nameStart = new int[size + 1];
+        StringBuilder packed = new StringBuilder();
+        for (int i = 0; i < size; ++i) {
+            packed.append(names[i]);
+            _nameStart[i+1] = packed.length();
+        }
+        _names = packed.toString();
+        // edges as read, then grouped by source
+        int[] from = new int[16];
+        int[] to = new int[16];
+        int edges = 0;
         In hypernymsFI = new In(hypernyms);
         try {
             while(hypernymsFI.hasNextLine()) {
                 String line = hypernymsFI.readLine();
                 if (line.isEmpty()) break;
                 String[] breakUp = line.split(",");
-                int baseNum = Integer.parseInt(breakUp[0]);
+                int baseNum = checkSynset(Integer.parseInt(breakUp[0]), size);
                 for (int i = 1; i < breakUp.length; ++i) {
-                    _G.addEdge(baseNum, Integer.parseInt(breakUp[i]));
+                    if (edges == from.length) {
+                        from = Arrays.copyOf(from, 2*edges);
+                        to = Arrays.copyOf(to, 2*edges);
+                    }
+                    from[edges] = baseNum;
+                    to[edges] = checkSynset(Integer.parseInt(breakUp[i]), size);
+                    ++edges;
                 }
             }
         }
         catch (NoSuchElementException e) {
             throw new IllegalArgumentException("invalid input format in Digraph constructor", e);
         }
-        DirectedCycle cycleCheck = new DirectedCycle(_G);
-        if (cycleCheck.hasCycle()) {
+        _hypernymStart = new int[size + 1];
+        _hypernyms = new int[edges];
+        for (int e = 0; e < edges; ++e) {
+            ++_hypernymStart[from[e] + 1];
+        }
+        for (int i = 0; i < size; ++i) {
+            _hypernymStart[i+1] += _hypernymStart[i];
+        }
+        int[] next = Arrays.copyOf(_hypernymStart, size);
+        for (int e = 0; e < edges; ++e) {
+            _hypernyms[next[from[e]]++] = to[e];
+        }
+        if (hasCycle(size)) {
             throw new IllegalArgumentException("Cycle detected");
         }
         int root = -1;
-        for (int i = 0; i < _G.V(); ++i) {
-            if (_G.outdegree(i) == 0) {
+        for (int i = 0; i < size; ++i) {
+            if (_hypernymStart[i+1] == _hypernymStart[i]) {
                 if (root == -1) root = i;
                 else throw new IllegalArgumentException("Not single rooted");
             }
         }
-        _sap = new SAP(_G);
+        _sap = new SAP(_hypernymStart, _hypernyms);
+    }
+
+    private static int checkSynset(int id, int size) {
+        if (id < 0 || id >= size) throw new IllegalArgumentException("Unknown synset id " + id);
+        return id;
+    }
+
+    // Kahn's algorithm: the graph is acyclic exactly when repeatedly removing synsets that are
+    // nobody's hypernym removes every synset
+    private boolean hasCycle(int size) {
+        int[] indegree = new int[size];
+        for (int target : _hypernyms) {
+            ++indegree[target];
+        }
+        int[] queue = new int[size];
+        int tail = 0;
+        for (int i = 0; i < size; ++i) {
+            if (indegree[i] == 0) queue[tail++] = i;
+        }
+        for (int head = 0; head < tail; ++head) {
+            int v = queue[head];
+            for (int i = _hypernymStart[v]; i < _hypernymStart[v+1]; ++i) {
+                if (--indegree[_hypernyms[i]] == 0) queue[tail++] = _hypernyms[i];
+            }
+        }
+        return tail < size;
     }
 
     // returns all WordNet nouns
@@ -86,23 +261,43 @@ public class WordNet {
         return _dict.containsKey(word);
     }
 
-    // distance between nounA and nounB (defined below)
-    public int distance(String nounA, String nounB) {
+    // length and ancestor synset of nounA and nounB, packed as by SAP.query
+    private long query(String nounA, String nounB) {
         if (!isNoun(nounA) || !isNoun(nounB))
             throw new IllegalArgumentException("Unknown noun");
-        Bag<Integer> Alist = _dict.get(nounA);
-        Bag<Integer> Blist = _dict.get(nounB);
-        return _sap.length(Alist, Blist);
+        if (_cache != null) {
+            Long cached = _cache.get(nounA, nounB);
+            if (cached != null) return cached;
+        }
+        long result = _sap.query(_dict.get(nounA), _dict.get(nounB));
+        if (_cache != null) _cache.put(nounA, nounB, result);
+        return result;
+    }
+
+    // distance between nounA and nounB (defined below)
+    public int distance(String nounA, String nounB) {
+        return (int) (query(nounA, nounB) >> 32);
     }
 
     // a synset (second field of synsets.txt) that is the common ancestor of nounA and nounB
     // in a shortest ancestral path (defined below)
     public String sap(String nounA, String nounB) {
-        if (!isNoun(nounA) || !isNoun(nounB))
-            throw new IllegalArgumentException("Unknown noun");
-        Bag<Integer> Alist = _dict.get(nounA);
-        Bag<Integer> Blist = _dict.get(nounB);
-        return _nameLookup.get(_sap.ancestor(Alist, Blist));
+        int ancestor = (int) query(nounA, nounB);
+        if (ancestor == -1) return null;
+        return _names.substring(_nameStart[ancestor], _nameStart[ancestor+1]);
+    }
+
+    // result cache counters; all 0 when caching is off
+    public long cacheHits() {
+        return _cache == null ? 0 : _cache.hits.sum();
+    }
+
+    public long cacheMisses() {
+        return _cache == null ? 0 : _cache.misses.sum();
+    }
+
+    public long cacheEvictions() {
+        return _cache == null ? 0 : _cache.evictions.sum();
     }
 
     // do unit testing of this class